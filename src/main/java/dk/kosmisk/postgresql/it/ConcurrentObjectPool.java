@@ -0,0 +1,384 @@
+package dk.kosmisk.postgresql.it;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.pool2.ObjectPool;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+
+/**
+ * A low overhead object pool for highly concurrent use
+ * <p>
+ * Borrowing first tries the objects most recently returned by the calling
+ * thread, then scans the shared bag of all pooled objects. Objects are
+ * claimed by compare-and-set on their state, so no locks are taken when an
+ * idle object is available. If none is idle and the pool isn't full, a new
+ * object is made, otherwise the thread waits for one to be handed back.
+ * <p>
+ * Returned objects become idle at once, and are offered to waiting threads
+ * until one of them, or any other borrower, claims them. Threads making a new
+ * object don't count as waiting, so returning an object never waits for
+ * another thread to connect.
+ * <p>
+ * Objects are activated and passivated through the factory, but never
+ * validated.
+ *
+ * @param <T> type of pooled objects
+ * @author Source (source (at) kosmisk.dk)
+ */
+final class ConcurrentObjectPool<T> implements ObjectPool<T> {
+
+    private static final int REMOVED = -1;
+    private static final int IDLE = 0;
+    private static final int IN_USE = 1;
+
+    private static final int THREAD_AFFINITY_SIZE = 4;
+    private static final long WAIT_RECHECK_MILLIS = 250;
+    private static final long BACKOFF_NANOS = 10_000;
+
+    private final PooledObjectFactory<T> factory;
+    private final int maxTotal;
+    private final CopyOnWriteArrayList<Entry<T>> entries;
+    private final ThreadLocal<ArrayDeque<Entry<T>>> recentlyUsed;
+    private final SynchronousQueue<Entry<T>> handoff;
+    private final AtomicInteger total;
+    private final AtomicInteger waiters;
+    private final Entry<T> roomAvailable;
+    private volatile boolean closed;
+
+    /**
+     * Construct a pool
+     *
+     * @param factory  factory for making, activating and passivating objects
+     * @param maxTotal maximum number of objects in the pool
+     */
+    ConcurrentObjectPool(PooledObjectFactory<T> factory, int maxTotal) {
+        if (maxTotal < 1) {
+            throw new IllegalArgumentException("maxTotal should be at least 1, got: " + maxTotal);
+        }
+        this.factory = factory;
+        this.maxTotal = maxTotal;
+        this.entries = new CopyOnWriteArrayList<>();
+        this.recentlyUsed = ThreadLocal.withInitial(() -> new ArrayDeque<>(THREAD_AFFINITY_SIZE));
+        this.handoff = new SynchronousQueue<>(true);
+        this.total = new AtomicInteger();
+        this.waiters = new AtomicInteger();
+        this.roomAvailable = new Entry<>(null);
+        this.roomAvailable.state.set(REMOVED);
+        this.closed = false;
+    }
+
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+        Entry<T> entry = claimIdle();
+        if (entry == null) {
+            entry = create();
+        }
+        if (entry == null) {
+            entry = await();
+        }
+        try {
+            factory.activateObject(entry.pooled);
+        } catch (Exception ex) {
+            destroy(entry);
+            throw ex;
+        }
+        return entry.pooled.getObject();
+    }
+
+    @Override
+    public void returnObject(T obj) throws Exception {
+        Entry<T> entry = find(obj);
+        if (entry == null || entry.state.get() != IN_USE) {
+            throw new IllegalStateException("Object has not been borrowed from this pool");
+        }
+        try {
+            factory.passivateObject(entry.pooled);
+        } catch (Exception ex) {
+            destroy(entry);
+            return;
+        }
+        if (closed) {
+            destroy(entry);
+            return;
+        }
+        remember(entry);
+        release(entry);
+    }
+
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        Entry<T> entry = find(obj);
+        if (entry == null) {
+            throw new IllegalStateException("Object is not part of this pool");
+        }
+        destroy(entry);
+    }
+
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        Entry<T> entry = create();
+        if (entry == null) {
+            return;
+        }
+        try {
+            factory.passivateObject(entry.pooled);
+        } catch (Exception ex) {
+            destroy(entry);
+            throw ex;
+        }
+        release(entry);
+    }
+
+    @Override
+    public int getNumIdle() {
+        return count(IDLE);
+    }
+
+    @Override
+    public int getNumActive() {
+        return count(IN_USE);
+    }
+
+    @Override
+    public void clear() throws Exception {
+        for (Entry<T> entry : entries) {
+            if (entry.state.compareAndSet(IDLE, IN_USE)) {
+                destroy(entry);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            clear();
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not clear pool", ex);
+        }
+    }
+
+    /**
+     * Claim an idle object, preferring those recently used by this thread
+     *
+     * @return claimed entry or null if none are idle
+     */
+    private Entry<T> claimIdle() {
+        Iterator<Entry<T>> local = recentlyUsed.get().descendingIterator();
+        while (local.hasNext()) {
+            Entry<T> entry = local.next();
+            if (entry.claim()) {
+                return entry;
+            }
+            if (entry.state.get() == REMOVED) {
+                local.remove();
+            }
+        }
+        for (Entry<T> entry : entries) {
+            if (entry.claim()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Make a new object, if there's room in the pool
+     *
+     * @return new entry in use or null if the pool is full
+     * @throws Exception if the factory cannot make an object
+     */
+    private Entry<T> create() throws Exception {
+        for (;;) {
+            int count = total.get();
+            if (count >= maxTotal) {
+                return null;
+            }
+            if (total.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        try {
+            Entry<T> entry = new Entry<>(factory.makeObject());
+            entries.add(entry);
+            return entry;
+        } catch (Exception ex) {
+            total.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    /**
+     * Wait for an object to be handed over or room for a new one
+     * <p>
+     * A thread only counts as waiting while it scans or polls, not while it
+     * makes a new object. Both the scan for idle objects and the check for
+     * room happen while counted, so {@link #release(Entry)} and
+     * {@link #destroy(Entry)} always see a waiter that could have missed
+     * them. The timeout only serves to notice that the pool has been closed.
+     *
+     * @return claimed entry
+     * @throws Exception if interrupted, pool is closed or creating an object
+     *                   fails
+     */
+    private Entry<T> await() throws Exception {
+        waiters.incrementAndGet();
+        try {
+            for (;;) {
+                assertOpen();
+                Entry<T> entry = claimIdle();
+                if (entry == null && total.get() < maxTotal) {
+                    waiters.decrementAndGet();
+                    try {
+                        entry = create();
+                    } finally {
+                        waiters.incrementAndGet();
+                    }
+                    if (entry == null) {
+                        continue;
+                    }
+                }
+                if (entry == null) {
+                    entry = handoff.poll(WAIT_RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    if (entry != null && !entry.claim()) {
+                        entry = null;
+                    }
+                }
+                if (entry != null && closed) {
+                    destroy(entry);
+                    assertOpen();
+                }
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Mark an entry in use as idle, and offer it to waiting threads
+     * <p>
+     * The entry is offered until it has been claimed, or nobody is waiting
+     * anymore. Since waiters scan for idle entries while counted, one that
+     * scanned before the entry became idle is always seen here.
+     *
+     * @param entry entry in use
+     */
+    private void release(Entry<T> entry) {
+        entry.state.set(IDLE);
+        for (int attempt = 0 ; waiters.get() > 0 ; attempt++) {
+            if (entry.state.get() != IDLE || handoff.offer(entry)) {
+                break;
+            }
+            backoff(attempt);
+        }
+        if (closed && entry.claim()) {
+            try {
+                destroy(entry);
+            } catch (Exception ex) {
+                throw new RuntimeException("Could not destroy object", ex);
+            }
+        }
+    }
+
+    private void destroy(Entry<T> entry) throws Exception {
+        if (entry.state.getAndSet(REMOVED) != REMOVED) {
+            entries.remove(entry);
+            total.decrementAndGet();
+            signalRoom();
+            factory.destroyObject(entry.pooled);
+        }
+    }
+
+    /**
+     * Tell a waiting thread that there's room for a new object
+     * <p>
+     * The waiter makes the object itself, so a slow factory doesn't hold up
+     * the thread destroying an object.
+     */
+    private void signalRoom() {
+        for (int attempt = 0 ; waiters.get() > 0 && !closed ; attempt++) {
+            if (total.get() >= maxTotal || handoff.offer(roomAvailable)) {
+                break;
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static void backoff(int attempt) {
+        if ((attempt & 0xff) == 0xff) {
+            LockSupport.parkNanos(BACKOFF_NANOS);
+        } else {
+            Thread.yield();
+        }
+    }
+
+    private void remember(Entry<T> entry) {
+        ArrayDeque<Entry<T>> local = recentlyUsed.get();
+        local.remove(entry);
+        if (local.size() >= THREAD_AFFINITY_SIZE) {
+            local.removeFirst();
+        }
+        local.addLast(entry);
+    }
+
+    private Entry<T> find(T obj) {
+        for (Entry<T> entry : recentlyUsed.get()) {
+            if (entry.pooled.getObject() == obj) {
+                return entry;
+            }
+        }
+        for (Entry<T> entry : entries) {
+            if (entry.pooled.getObject() == obj) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private int count(int state) {
+        int count = 0;
+        for (Entry<T> entry : entries) {
+            if (entry.state.get() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void assertOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+    }
+
+    /**
+     * A pooled object and its state
+     *
+     * @param <T> type of pooled object
+     */
+    private static final class Entry<T> {
+
+        private final PooledObject<T> pooled;
+        private final AtomicInteger state;
+
+        private Entry(PooledObject<T> pooled) {
+            this.pooled = pooled;
+            this.state = new AtomicInteger(IN_USE);
+        }
+
+        private boolean claim() {
+            return state.compareAndSet(IDLE, IN_USE);
+        }
+    }
+}
@@ -4,18 +4,25 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
 import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -26,6 +33,7 @@ import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.PoolingDataSource;
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 /**
  * A pooling datasource for integration testing with PostgreSQL
@@ -35,6 +43,7 @@ import org.apache.commons.pool2.impl.GenericObjectPool;
 public class PostgresITDataSource extends PoolingDataSource<PoolableConnection> {
 
     private static final String DRIVER = "org.postgresql.Driver";
+    private static final String INDEX_REBUILD_MAINTENANCE_WORK_MEM = "256MB";
 
     /**
      * Construct a PostgreSQL datasource from the first available location
@@ -45,7 +54,23 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
      *                    environment variables and fall back to ${user.name}
      */
     public PostgresITDataSource(List<DatabaseLocation> locations, boolean useFallback) {
-        super(makeConnectionPool(locations, useFallback));
+        this(locations, useFallback, false);
+    }
+
+    /**
+     * Construct a PostgreSQL datasource from the first available location
+     *
+     * @param locations      list of locations {@link DatabaseLocation} to
+     *                       search through
+     * @param useFallback    if no database could be found, should we try the
+     *                       PG* environment variables and fall back to
+     *                       ${user.name}
+     * @param concurrentPool use the low overhead pool described in
+     *                       {@link Builder#withConcurrentPool()} instead of
+     *                       the commons-pool2 {@link GenericObjectPool}
+     */
+    public PostgresITDataSource(List<DatabaseLocation> locations, boolean useFallback, boolean concurrentPool) {
+        super(makeConnectionPool(locations, useFallback, concurrentPool));
     }
 
     /**
@@ -172,7 +197,15 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
               " FROM pg_tables" +
               " WHERE schemaname='public'";
     private static final String FOREIGN_KEY
-            = "SELECT ft.relname, tt.relname" +
+            = "SELECT ft.relname, tt.relname," +
+              " array_to_string(ARRAY(SELECT quote_ident(a.attname)" +
+              "  FROM unnest(c.conkey) WITH ORDINALITY AS k(attnum, pos)" +
+              "  JOIN pg_attribute AS a ON a.attrelid = c.conrelid AND a.attnum = k.attnum" +
+              "  ORDER BY k.pos), ', ')," +
+              " array_to_string(ARRAY(SELECT quote_ident(a.attname)" +
+              "  FROM unnest(c.confkey) WITH ORDINALITY AS k(attnum, pos)" +
+              "  JOIN pg_attribute AS a ON a.attrelid = c.confrelid AND a.attnum = k.attnum" +
+              "  ORDER BY k.pos), ', ')" +
               " FROM pg_constraint AS c" +
               " JOIN pg_namespace AS n ON c.connamespace = n.oid" +
               " JOIN pg_class AS ft ON c.conrelid = ft.oid" +
@@ -190,19 +223,30 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
      * @throws SQLException if lists cannot be made
      */
     public List<String> allTableNames() throws SQLException {
+        try (Connection connection = super.getConnection()) {
+            return allTableNames(connection, foreignKeys(connection));
+        }
+    }
+
+    /**
+     * List all tables in schema public, ordered by foreign keys
+     *
+     * @param connection  connection to list tables on
+     * @param foreignKeys all foreign keys in schema public
+     * @return ordered list of table names
+     * @throws SQLException if lists cannot be made
+     */
+    private static List<String> allTableNames(Connection connection, List<ForeignKey> foreignKeys) throws SQLException {
         HashMap<String, HashSet<String>> foreignKeysRules = new HashMap<>();
-        try (Connection connection = super.getConnection();
-             Statement tablesStmt = connection.createStatement();
-             Statement foreignKeysStmt = connection.createStatement();
-             ResultSet tables = tablesStmt.executeQuery(ALL_TABLES);
-             ResultSet foreignKeys = foreignKeysStmt.executeQuery(FOREIGN_KEY)) {
+        try (Statement stmt = connection.createStatement();
+             ResultSet tables = stmt.executeQuery(ALL_TABLES)) {
             while (tables.next()) {
                 foreignKeysRules.put(tables.getString(1), new HashSet<>());
             }
-            while (foreignKeys.next()) {
-                foreignKeysRules.get(foreignKeys.getString(1))
-                        .add(foreignKeys.getString(2));
-            }
+        }
+        for (ForeignKey foreignKey : foreignKeys) {
+            foreignKeysRules.get(foreignKey.table)
+                    .add(foreignKey.referencedTable);
         }
         ArrayList<String> orderedTables = new ArrayList<>(foreignKeysRules.size());
         while (!foreignKeysRules.isEmpty()) {
@@ -222,6 +266,27 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
         return orderedTables;
     }
 
+    /**
+     * List all foreign keys in schema public
+     *
+     * @param connection connection to read foreign keys on
+     * @return foreign keys
+     * @throws SQLException if foreign keys cannot be read
+     */
+    private static List<ForeignKey> foreignKeys(Connection connection) throws SQLException {
+        ArrayList<ForeignKey> foreignKeys = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(FOREIGN_KEY)) {
+            while (resultSet.next()) {
+                foreignKeys.add(new ForeignKey(resultSet.getString(1),
+                                               resultSet.getString(3),
+                                               resultSet.getString(2),
+                                               resultSet.getString(4)));
+            }
+        }
+        return foreignKeys;
+    }
+
     /**
      * Ask the database to copy all the content of listed tables to disk
      *
@@ -284,8 +349,323 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
         copyTablesFromDisk(allTableNames());
     }
 
+    private static final String SECONDARY_INDEXES
+            = "SELECT t.relname, quote_ident(i.relname), pg_get_indexdef(x.indexrelid)" +
+              " FROM pg_index AS x" +
+              " JOIN pg_class AS i ON x.indexrelid = i.oid" +
+              " JOIN pg_class AS t ON x.indrelid = t.oid" +
+              " JOIN pg_namespace AS n ON t.relnamespace = n.oid" +
+              " WHERE n.nspname = 'public'" +
+              " AND NOT EXISTS (SELECT 1 FROM pg_constraint AS c WHERE c.conindid = x.indexrelid)";
+
+    /**
+     * Ask the database to copy all the content backup files into the tables,
+     * rebuilding indexes afterwards
+     * <p>
+     * Indexes that don't back a constraint are dropped before loading the
+     * tables, and created again once all tables are loaded. This runs in a
+     * single transaction, so if a table cannot be loaded, all indexes are
+     * retained.
+     * <p>
+     * The indexes are then rebuilt in parallel, one table at a time per
+     * connection, and the tables are analyzed. maintenance_work_mem is raised
+     * to at least 256MB while rebuilding.
+     * <p>
+     * The rebuild runs after the load has been committed. If an index cannot
+     * be created (e.g. a unique index and duplicate rows have been loaded),
+     * the remaining indexes are still created, but the schema is left without
+     * the failed ones. Their definitions are listed in the thrown exception.
+     *
+     * @param tables  list of table names
+     * @param threads number of connections to rebuild indexes on
+     * @throws SQLException if the database cannot copy table content or
+     *                      rebuild indexes
+     */
     @SuppressFBWarnings("SQL_NONCONSTANT_STRING_PASSED_TO_EXECUTE")
+    public void copyTablesFromDiskWithIndexRebuild(Collection<String> tables, int threads) throws SQLException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread for rebuilding indexes, got: " + threads);
+        }
+        List<String> tableNames = tables.stream()
+                .map(table -> table.replaceAll("[^0-9_a-zA-Z]", ""))
+                .collect(Collectors.toList());
+        HashMap<String, List<String>> indexes = new HashMap<>();
+        Path tempPath = dumpFolder();
+        try (Connection connection = super.getConnection();
+             Statement stmt = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            List<String> dropIndexes = new ArrayList<>();
+            try (ResultSet resultSet = stmt.executeQuery(SECONDARY_INDEXES)) {
+                while (resultSet.next()) {
+                    String table = resultSet.getString(1).replaceAll("[^0-9_a-zA-Z]", "");
+                    if (tableNames.contains(table)) {
+                        dropIndexes.add("DROP INDEX public." + resultSet.getString(2));
+                        indexes.computeIfAbsent(table, t -> new ArrayList<>())
+                                .add(resultSet.getString(3));
+                    }
+                }
+            }
+            for (String dropIndex : dropIndexes) {
+                stmt.executeUpdate(dropIndex);
+            }
+            copyData(stmt, tempPath, tableNames, "FROM");
+            connection.commit();
+        }
+
+        List<String> failed = new ArrayList<>();
+        List<SQLException> causes = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tableNames.size())));
+        try {
+            HashMap<String, Future<List<String>>> rebuilds = new HashMap<>();
+            for (String table : tableNames) {
+                List<String> createIndexes = indexes.getOrDefault(table, new ArrayList<>());
+                rebuilds.put(table, executor.submit(rebuildIndexes(table, createIndexes, causes)));
+            }
+            for (Map.Entry<String, Future<List<String>>> rebuild : rebuilds.entrySet()) {
+                try {
+                    failed.addAll(rebuild.getValue().get());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    List<String> all = indexes.values().stream()
+                            .flatMap(List::stream)
+                            .collect(Collectors.toList());
+                    throw new SQLException("Interrupted while rebuilding indexes, the schema may be left without some of: " +
+                                           String.join("; ", all), ex);
+                } catch (ExecutionException ex) {
+                    failed.addAll(indexes.getOrDefault(rebuild.getKey(), new ArrayList<>()));
+                    causes.add(new SQLException("Could not rebuild indexes on: " + rebuild.getKey(), ex.getCause()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!causes.isEmpty()) {
+            String message = failed.isEmpty() ?
+                             "Could not analyze restored tables" :
+                             "Could not rebuild indexes, the schema is left without: " + String.join("; ", failed);
+            SQLException error = new SQLException(message, causes.get(0));
+            causes.stream()
+                    .skip(1)
+                    .forEach(error::addSuppressed);
+            throw error;
+        }
+    }
+
+    /**
+     * Convenience method for
+     * {@link #copyTablesFromDiskWithIndexRebuild(java.util.Collection, int)}
+     * <p>
+     * Rebuilds using as many connections as the pool has by default
+     *
+     * @param tables list of table names
+     * @throws SQLException if the database cannot copy table content or
+     *                      rebuild indexes
+     */
+    public void copyTablesFromDiskWithIndexRebuild(String... tables) throws SQLException {
+        copyTablesFromDiskWithIndexRebuild(Arrays.asList(tables), GenericObjectPoolConfig.DEFAULT_MAX_TOTAL);
+    }
+
+    /**
+     * Convenience method for
+     * {@link #copyTablesFromDiskWithIndexRebuild(java.util.Collection, int)}
+     * <p>
+     * Takes list of tables from {@link #allTableNames()}, and rebuilds using as
+     * many connections as the pool has by default
+     *
+     * @throws SQLException if the database cannot copy table content or
+     *                      rebuild indexes
+     */
+    public void copyAllTablesFromDiskWithIndexRebuild() throws SQLException {
+        copyTablesFromDiskWithIndexRebuild(allTableNames(), GenericObjectPoolConfig.DEFAULT_MAX_TOTAL);
+    }
+
+    private static final String RAISE_MAINTENANCE_WORK_MEM
+            = "SELECT set_config('maintenance_work_mem', ?, false)" +
+              " WHERE pg_size_bytes(current_setting('maintenance_work_mem')) < pg_size_bytes(?)";
+
+    /**
+     * Create indexes for a table, and analyze it
+     * <p>
+     * Every index is attempted, even if some fail.
+     *
+     * @param table         sanitized table name
+     * @param createIndexes index definitions
+     * @param causes        where errors are collected
+     * @return job for an executor, yielding the definitions of indexes that
+     *         could not be created
+     */
+    @SuppressFBWarnings("SQL_NONCONSTANT_STRING_PASSED_TO_EXECUTE")
+    private Callable<List<String>> rebuildIndexes(String table, List<String> createIndexes, List<SQLException> causes) {
+        return () -> {
+            List<String> failed = new ArrayList<>();
+            List<String> remaining = new ArrayList<>(createIndexes);
+            try (Connection connection = super.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                try (PreparedStatement raise = connection.prepareStatement(RAISE_MAINTENANCE_WORK_MEM)) {
+                    raise.setString(1, INDEX_REBUILD_MAINTENANCE_WORK_MEM);
+                    raise.setString(2, INDEX_REBUILD_MAINTENANCE_WORK_MEM);
+                    raise.executeQuery().close();
+                }
+                try {
+                    while (!remaining.isEmpty()) {
+                        String createIndex = remaining.remove(0);
+                        try {
+                            stmt.executeUpdate(createIndex);
+                        } catch (SQLException ex) {
+                            failed.add(createIndex);
+                            causes.add(ex);
+                        }
+                    }
+                    stmt.executeUpdate("ANALYZE " + table);
+                } finally {
+                    stmt.executeUpdate("RESET maintenance_work_mem");
+                }
+            } catch (SQLException ex) {
+                failed.addAll(remaining);
+                causes.add(ex);
+            }
+            return failed;
+        };
+    }
+
+    /**
+     * Ask the database to copy a foreign key consistent subset of all tables to
+     * disk
+     * <p>
+     * The subset starts from the rows selected by the roots, then every row
+     * referenced by a foreign key from a row in the subset is included too.
+     * Tables with no rows in the subset are dumped empty, so the snapshot can
+     * be restored using {@link #copyAllTablesFromDisk()}.
+     * <p>
+     * The subset is taken in a single repeatable read transaction.
+     *
+     * @param roots where the subset starts
+     * @throws SQLException if the database cannot copy table content
+     */
+    @SuppressFBWarnings("SQL_NONCONSTANT_STRING_PASSED_TO_EXECUTE")
+    public void copySubsetToDisk(Collection<SubsetRoot> roots) throws SQLException {
+        Path tempPath = dumpFolder();
+        try (Connection connection = super.getConnection();
+             Statement stmt = connection.createStatement()) {
+            int isolation = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setAutoCommit(false);
+            try {
+                List<ForeignKey> foreignKeys = foreignKeys(connection);
+                List<String> tables = allTableNames(connection, foreignKeys).stream()
+                        .map(table -> table.replaceAll("[^0-9_a-zA-Z]", ""))
+                        .collect(Collectors.toList());
+                for (SubsetRoot root : roots) {
+                    if (!tables.contains(root.table)) {
+                        throw new IllegalArgumentException("Unknown table in subset root: " + root.table);
+                    }
+                }
+                HashMap<String, List<ForeignKey>> referencedBy = new HashMap<>();
+                for (ForeignKey foreignKey : foreignKeys) {
+                    referencedBy.computeIfAbsent(foreignKey.referencedTable.replaceAll("[^0-9_a-zA-Z]", ""), t -> new ArrayList<>())
+                            .add(foreignKey);
+                }
+                // Referencing tables come after the tables they refer, so
+                // walking backwards completes a table's subset before any of
+                // the tables it refers are visited
+                HashMap<String, String> subsets = new HashMap<>();
+                for (int i = tables.size() - 1 ; i >= 0 ; i--) {
+                    String table = tables.get(i);
+                    List<String> selects = new ArrayList<>();
+                    for (SubsetRoot root : roots) {
+                        if (root.table.equals(table)) {
+                            selects.add(root.select());
+                        }
+                    }
+                    for (ForeignKey foreignKey : referencedBy.getOrDefault(table, new ArrayList<>())) {
+                        String referencing = foreignKey.table.replaceAll("[^0-9_a-zA-Z]", "");
+                        String subset = subsets.get(referencing);
+                        if (subset != null) {
+                            selects.add("(SELECT ctid AS row_id FROM " + table +
+                                        " WHERE (" + foreignKey.referencedColumns + ") IN (SELECT " + foreignKey.columns +
+                                        " FROM " + referencing +
+                                        " WHERE ctid IN (SELECT row_id FROM " + subset + ")))");
+                        }
+                    }
+                    if (!selects.isEmpty()) {
+                        String subset = "pg_temp.subset_" + i;
+                        stmt.executeUpdate("CREATE TEMPORARY TABLE " + subset + " ON COMMIT DROP AS " +
+                                           String.join(" UNION ALL ", selects));
+                        subsets.put(table, subset);
+                    }
+                }
+                for (String table : tables) {
+                    String subset = subsets.get(table);
+                    String select = subset == null ?
+                                    "SELECT * FROM " + table + " WHERE false" :
+                                    "SELECT * FROM " + table + " WHERE ctid IN (SELECT row_id FROM " + subset + ")";
+                    stmt.executeUpdate("COPY (" + select + ") TO " + dumpFile(tempPath, table));
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+                connection.setTransactionIsolation(isolation);
+            }
+        }
+    }
+
+    /**
+     * Convenience method for {@link #copySubsetToDisk(java.util.Collection)}
+     *
+     * @param roots where the subset starts
+     * @throws SQLException if the database cannot copy table content
+     */
+    public void copySubsetToDisk(SubsetRoot... roots) throws SQLException {
+        copySubsetToDisk(Arrays.asList(roots));
+    }
+
     private void copyData(Collection<String> tables, String direction) throws SQLException {
+        Path tempPath = dumpFolder();
+        try (Connection connection = super.getConnection();
+             Statement stmt = connection.createStatement()) {
+            copyData(stmt, tempPath, tables, direction);
+        }
+    }
+
+    @SuppressFBWarnings("SQL_NONCONSTANT_STRING_PASSED_TO_EXECUTE")
+    private static void copyData(Statement stmt, Path tempPath, Collection<String> tables, String direction) throws SQLException {
+        for (String table : tables) {
+            table = table.replaceAll("[^0-9_a-zA-Z]", "");
+            StringBuilder sql = new StringBuilder();
+            sql.append("COPY ")
+                    .append(table)
+                    .append(" ")
+                    .append(direction)
+                    .append(" ")
+                    .append(dumpFile(tempPath, table));
+            stmt.executeUpdate(sql.toString());
+        }
+    }
+
+    /**
+     * Quoted location of a table's dump file
+     *
+     * @param tempPath dump folder
+     * @param table    sanitized table name
+     * @return sql string literal
+     */
+    private static String dumpFile(Path tempPath, String table) {
+        return "'" + tempPath.resolve(table + ".dat").toString()
+                .replaceAll("'", "''") + "'";
+    }
+
+    /**
+     * Find (and create) the folder the database dumps tables to
+     * <p>
+     * This is the system property "postgresql.dump.folder" or
+     * ${java.io.tmpdir}/pg_dumps
+     *
+     * @return dump folder
+     */
+    private static Path dumpFolder() {
         String dumpFolderLocation = System.getProperty("postgresql.dump.folder");
         if (dumpFolderLocation == null) {
             dumpFolderLocation = System.getProperty("java.io.tmpdir");
@@ -304,26 +684,10 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
             throw new RuntimeException("Cannot find temp location for postgres dumps");
         }
 
-        Path tempPath = new File(dumpFolderLocation).toPath();
-        try (Connection connection = super.getConnection();
-             Statement stmt = connection.createStatement()) {
-            for (String table : tables) {
-                table = table.replaceAll("[^0-9_a-zA-Z]", "");
-                StringBuilder sql = new StringBuilder();
-                sql.append("COPY ")
-                        .append(table)
-                        .append(" ")
-                        .append(direction)
-                        .append(" '")
-                        .append(tempPath.resolve(table + ".dat").toString()
-                                .replaceAll("'", "''"))
-                        .append("'");
-                stmt.executeUpdate(sql.toString());
-            }
-        }
+        return new File(dumpFolderLocation).toPath();
     }
 
-    private static ObjectPool<PoolableConnection> makeConnectionPool(List<DatabaseLocation> locations, boolean useFallback) {
+    static ObjectPool<PoolableConnection> makeConnectionPool(List<DatabaseLocation> locations, boolean useFallback, boolean concurrentPool) {
         String connectString = null;
         Properties props = new Properties();
         for (DatabaseLocation location : locations) {
@@ -338,10 +702,10 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
         if (connectString == null) {
             throw new IllegalStateException("Cannot locate database");
         }
-        return constructConnectionPool(connectString, props);
+        return constructConnectionPool(connectString, props, concurrentPool);
     }
 
-    private static ObjectPool<PoolableConnection> constructConnectionPool(String connectString, Properties props) {
+    private static ObjectPool<PoolableConnection> constructConnectionPool(String connectString, Properties props, boolean concurrentPool) {
         try {
             PostgresITDataSource.class.getClassLoader().loadClass(DRIVER);
         } catch (ClassNotFoundException ex) {
@@ -349,11 +713,105 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
         }
         ConnectionFactory factory = new DriverManagerConnectionFactory(connectString, props);
         PoolableConnectionFactory pool = new PoolableConnectionFactory(factory, null);
-        ObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<>(pool);
+        ObjectPool<PoolableConnection> connectionPool;
+        if (concurrentPool) {
+            connectionPool = new ConcurrentObjectPool<>(pool, GenericObjectPoolConfig.DEFAULT_MAX_TOTAL);
+        } else {
+            connectionPool = new GenericObjectPool<>(pool);
+        }
         pool.setPool(connectionPool);
         return connectionPool;
     }
 
+    /**
+     * A foreign key constraint in schema public
+     * <p>
+     * Column lists are quoted and comma separated, in constraint order.
+     */
+    private static final class ForeignKey {
+
+        private final String table;
+        private final String columns;
+        private final String referencedTable;
+        private final String referencedColumns;
+
+        private ForeignKey(String table, String columns, String referencedTable, String referencedColumns) {
+            this.table = table;
+            this.columns = columns;
+            this.referencedTable = referencedTable;
+            this.referencedColumns = referencedColumns;
+        }
+    }
+
+    /**
+     * Where a subset for {@link #copySubsetToDisk(java.util.Collection)}
+     * starts
+     * <p>
+     * A table, with an optional predicate and an optional row limit.
+     */
+    public static final class SubsetRoot {
+
+        private final String table;
+        private final String predicate;
+        private final Integer limit;
+
+        private SubsetRoot(String table, String predicate, Integer limit) {
+            this.table = table.replaceAll("[^0-9_a-zA-Z]", "");
+            this.predicate = predicate;
+            this.limit = limit;
+        }
+
+        /**
+         * Start subset from all rows of a table
+         *
+         * @param table name of table
+         * @return new subset root
+         */
+        public static SubsetRoot of(String table) {
+            return new SubsetRoot(table, null, null);
+        }
+
+        /**
+         * Start subset from rows matching a predicate
+         *
+         * @param table     name of table
+         * @param predicate sql expression, as it would be written after WHERE
+         * @return new subset root
+         */
+        public static SubsetRoot where(String table, String predicate) {
+            return new SubsetRoot(table, predicate, null);
+        }
+
+        /**
+         * Limit the number of rows taken from this root
+         *
+         * @param rows max number of rows
+         * @return new subset root
+         */
+        public SubsetRoot limit(int rows) {
+            if (rows < 0) {
+                throw new IllegalArgumentException("Row limit cannot be negative: " + rows);
+            }
+            return new SubsetRoot(table, predicate, rows);
+        }
+
+        private String select() {
+            StringBuilder sql = new StringBuilder();
+            sql.append("(SELECT ctid AS row_id FROM ")
+                    .append(table);
+            if (predicate != null) {
+                sql.append(" WHERE (")
+                        .append(predicate)
+                        .append(")");
+            }
+            if (limit != null) {
+                sql.append(" LIMIT ")
+                        .append(limit);
+            }
+            return sql.append(")").toString();
+        }
+    }
+
     /**
      * Construct a default builder
      *
@@ -370,10 +828,12 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
 
         private final List<DatabaseLocation> locations;
         private Boolean useFallback;
+        private Boolean concurrentPool;
 
         public Builder() {
             locations = new ArrayList<>();
             this.useFallback = null;
+            this.concurrentPool = null;
         }
 
         /**
@@ -451,13 +911,38 @@ public class PostgresITDataSource extends PoolingDataSource<PoolableConnection>
             return this;
         }
 
+        /**
+         * Use a low overhead connection pool
+         * <p>
+         * Connections are claimed lock free, preferring the ones last returned
+         * by the calling thread. Connections are not validated when borrowed.
+         * This reduces contention when many threads borrow connections at
+         * the same time.
+         *
+         * @return self
+         */
+        public Builder withConcurrentPool() {
+            this.concurrentPool = setOrFail(this.concurrentPool, true, "withConcurrentPool");
+            return this;
+        }
+
+        /**
+         * Use the commons-pool2 connection pool (default)
+         *
+         * @return self
+         */
+        public Builder withGenericPool() {
+            this.concurrentPool = setOrFail(this.concurrentPool, false, "withGenericPool");
+            return this;
+        }
+
         /**
          * Build a DataSource
          *
          * @return new dataSource
          */
         public PostgresITDataSource build() {
-            return new PostgresITDataSource(locations, or(null, useFallback, true));
+            return new PostgresITDataSource(locations, or(null, useFallback, true), or(null, concurrentPool, false));
         }
 
         private <T> T setOrFail(T oldValue, T newValue, String name) {
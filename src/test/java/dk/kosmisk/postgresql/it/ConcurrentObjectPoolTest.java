@@ -0,0 +1,233 @@
+package dk.kosmisk.postgresql.it;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class ConcurrentObjectPoolTest {
+
+    @Test(timeout = 30_000)
+    public void testMaxTotalNotExceeded() throws Exception {
+        System.out.println("maxTotalNotExceeded");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 4);
+        AtomicInteger borrowed = new AtomicInteger();
+        AtomicInteger maxBorrowed = new AtomicInteger();
+        runConcurrently(16, 10_000, () -> {
+            Object obj = pool.borrowObject();
+            maxBorrowed.accumulateAndGet(borrowed.incrementAndGet(), Math::max);
+            borrowed.decrementAndGet();
+            pool.returnObject(obj);
+        });
+        assertTrue("borrowed at once: " + maxBorrowed.get(), maxBorrowed.get() <= 4);
+        assertTrue("made: " + factory.made.get(), factory.made.get() <= 4);
+    }
+
+    @Test(timeout = 30_000)
+    public void testBorrowerReceivesReturnedObject() throws Exception {
+        System.out.println("borrowerReceivesReturnedObject");
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(new CountingFactory(), 1);
+        Object obj = pool.borrowObject();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Object> waiter = executor.submit(() -> {
+                started.countDown();
+                return pool.borrowObject();
+            });
+            started.await();
+            Thread.sleep(100);
+            assertFalse(waiter.isDone());
+            pool.returnObject(obj);
+            assertSame(obj, waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, pool.getNumActive());
+            assertEquals(0, pool.getNumIdle());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testReturnDoesNotWaitForSlowMake() throws Exception {
+        System.out.println("returnDoesNotWaitForSlowMake");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 2);
+        Object first = pool.borrowObject();
+        Object second = pool.borrowObject();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Object> waiter = executor.submit(() -> {
+                started.countDown();
+                return pool.borrowObject();
+            });
+            started.await();
+            Thread.sleep(100);
+            factory.making = new CountDownLatch(1);
+            factory.gate = gate;
+            pool.invalidateObject(second);
+            assertTrue("waiter should be making an object", factory.making.await(5, TimeUnit.SECONDS));
+            executor.submit(() -> {
+                pool.returnObject(first);
+                return null;
+            }).get(1, TimeUnit.SECONDS);
+            assertEquals(1, pool.getNumIdle());
+            gate.countDown();
+            assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, pool.getNumActive());
+        } finally {
+            gate.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void testAddObjectIsBorrowed() throws Exception {
+        System.out.println("addObjectIsBorrowed");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 1);
+        pool.addObject();
+        assertEquals(1, pool.getNumIdle());
+        assertNotNull(pool.borrowObject());
+        assertEquals(1, pool.getNumActive());
+        assertEquals(1, factory.made.get());
+    }
+
+    @Test(timeout = 30_000)
+    public void testInvalidateObjectFreesSlot() throws Exception {
+        System.out.println("invalidateObjectFreesSlot");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 1);
+        Object first = pool.borrowObject();
+        pool.invalidateObject(first);
+        assertEquals(0, pool.getNumActive());
+        assertEquals(0, pool.getNumIdle());
+        assertEquals(1, factory.destroyed.get());
+        Object second = pool.borrowObject();
+        assertNotSame(first, second);
+        assertEquals(2, factory.made.get());
+    }
+
+    @Test(timeout = 30_000)
+    public void testReturnToClosedPoolDestroys() throws Exception {
+        System.out.println("returnToClosedPoolDestroys");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 2);
+        Object obj = pool.borrowObject();
+        pool.close();
+        pool.returnObject(obj);
+        assertEquals(1, factory.destroyed.get());
+        assertEquals(0, pool.getNumActive());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test(timeout = 30_000)
+    public void testActivationFailureFreesSlot() throws Exception {
+        System.out.println("activationFailureFreesSlot");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 1);
+        factory.failActivation = true;
+        try {
+            pool.borrowObject();
+            fail("Expected activation to fail");
+        } catch (IllegalStateException ex) {
+            assertEquals("activation failed", ex.getMessage());
+        }
+        assertEquals(1, factory.destroyed.get());
+        assertEquals(0, pool.getNumActive());
+        factory.failActivation = false;
+        assertNotNull(pool.borrowObject());
+        assertEquals(2, factory.made.get());
+    }
+
+    @Test(timeout = 30_000)
+    public void testCountsAfterConcurrentUse() throws Exception {
+        System.out.println("countsAfterConcurrentUse");
+        CountingFactory factory = new CountingFactory();
+        ConcurrentObjectPool<Object> pool = new ConcurrentObjectPool<>(factory, 8);
+        runConcurrently(32, 5_000, () -> pool.returnObject(pool.borrowObject()));
+        assertEquals(0, pool.getNumActive());
+        assertEquals(factory.made.get() - factory.destroyed.get(), pool.getNumIdle());
+        assertTrue(pool.getNumIdle() <= 8);
+    }
+
+    private interface Job {
+
+        void run() throws Exception;
+    }
+
+    private static void runConcurrently(int threads, int iterations, Job job) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>(threads);
+            for (int i = 0 ; i < threads ; i++) {
+                futures.add(executor.submit(() -> {
+                    go.await();
+                    for (int n = 0 ; n < iterations ; n++) {
+                        job.run();
+                    }
+                    return null;
+                }));
+            }
+            go.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class CountingFactory extends BasePooledObjectFactory<Object> {
+
+        private final AtomicInteger made = new AtomicInteger();
+        private final AtomicInteger destroyed = new AtomicInteger();
+        private volatile boolean failActivation = false;
+        private volatile CountDownLatch making = null;
+        private volatile CountDownLatch gate = null;
+
+        @Override
+        public Object create() throws InterruptedException {
+            if (gate != null) {
+                making.countDown();
+                gate.await();
+            }
+            made.incrementAndGet();
+            return new Object();
+        }
+
+        @Override
+        public PooledObject<Object> wrap(Object obj) {
+            return new DefaultPooledObject<>(obj);
+        }
+
+        @Override
+        public void activateObject(PooledObject<Object> p) {
+            if (failActivation) {
+                throw new IllegalStateException("activation failed");
+            }
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Object> p) {
+            destroyed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package dk.kosmisk.postgresql.it;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.dbcp2.PoolableConnection;
+import org.apache.commons.pool2.ObjectPool;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare borrow/return throughput of the connection pools
+ * <p>
+ * Two things are measured for each pool:
+ * <ul>
+ * <li> the bare pool, borrowing and returning connections with no server
+ * round trip. This isolates the pool overhead.
+ * <li> {@link PostgresITDataSource#getConnection()}/close(), which is what
+ * tests see. getConnection() runs "SET log_statement = 'all'" on every
+ * borrow, and that round trip usually dominates the pool overhead.
+ * </ul>
+ * Only runs when enabled with -Dbenchmark=true
+ *
+ * @author Source (source (at) kosmisk.dk)
+ */
+public class ConnectionPoolBenchmarkIT {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32};
+    private static final int WARMUP_ITERATIONS = 1_000;
+    private static final int POOL_ITERATIONS = 20_000;
+    private static final int DATASOURCE_ITERATIONS = 2_000;
+
+    private static final List<PostgresITDataSource.DatabaseLocation> LOCATIONS = Arrays.asList(
+            new PostgresITDataSource.DatabaseFromProperty("testbase"),
+            new PostgresITDataSource.DatabaseFromEnvironment("LOCAL_POSTGRESQL_URL"));
+
+    @Test
+    public void benchmarkBorrowReturn() throws Exception {
+        Assume.assumeTrue("Benchmark not enabled (-Dbenchmark=true)", Boolean.getBoolean("benchmark"));
+        System.out.println("benchmarkBorrowReturn");
+        System.out.println("Bare pool (no server round trip)");
+        System.out.println(String.format("%8s %16s %16s", "threads", "generic ops/s", "concurrent ops/s"));
+        for (int threads : THREAD_COUNTS) {
+            double generic = poolThroughput(false, threads);
+            double concurrent = poolThroughput(true, threads);
+            System.out.println(String.format("%8d %16.0f %16.0f", threads, generic, concurrent));
+        }
+        System.out.println("PostgresITDataSource.getConnection() (includes SET log_statement)");
+        System.out.println(String.format("%8s %16s %16s", "threads", "generic ops/s", "concurrent ops/s"));
+        for (int threads : THREAD_COUNTS) {
+            double generic = dataSourceThroughput(false, threads);
+            double concurrent = dataSourceThroughput(true, threads);
+            System.out.println(String.format("%8d %16.0f %16.0f", threads, generic, concurrent));
+        }
+    }
+
+    private double poolThroughput(boolean concurrentPool, int threads) throws Exception {
+        ObjectPool<PoolableConnection> pool = PostgresITDataSource.makeConnectionPool(LOCATIONS, true, concurrentPool);
+        try {
+            double throughput = throughput(threads, POOL_ITERATIONS, () -> pool.borrowObject().close());
+            assertEquals(0, pool.getNumActive());
+            return throughput;
+        } finally {
+            pool.close();
+        }
+    }
+
+    private double dataSourceThroughput(boolean concurrentPool, int threads) throws Exception {
+        PostgresITDataSource dataSource = new PostgresITDataSource(LOCATIONS, true, concurrentPool);
+        try {
+            return throughput(threads, DATASOURCE_ITERATIONS, () -> dataSource.getConnection().close());
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    private interface Job {
+
+        void run() throws Exception;
+    }
+
+    private double throughput(int threads, int iterations, Job job) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            run(executor, threads, WARMUP_ITERATIONS, job);
+            long start = System.nanoTime();
+            run(executor, threads, iterations, job);
+            long duration = System.nanoTime() - start;
+            return (double) threads * iterations * 1_000_000_000L / duration;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void run(ExecutorService executor, int threads, int iterations, Job job) throws Exception {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>(threads);
+        for (int i = 0 ; i < threads ; i++) {
+            futures.add(executor.submit(() -> {
+                ready.countDown();
+                go.await();
+                for (int n = 0 ; n < iterations ; n++) {
+                    job.run();
+                }
+                return null;
+            }));
+        }
+        ready.await();
+        go.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+}
@@ -40,6 +40,28 @@ public class PostgresITDataSourceIT {
         fail("Could not get version from database");
     }
 
+    @Test
+    public void testConcurrentPool() throws Exception {
+        System.out.println("concurrentPool");
+        PostgresITDataSource concurrentDataSource = PostgresITDataSource.builder()
+                .fromProperty("testbase")
+                .fromEnvironment("LOCAL_POSTGRESQL_URL")
+                .withConcurrentPool()
+                .build();
+        try {
+            for (int i = 0 ; i < 2 ; i++) {
+                try (Connection connection = concurrentDataSource.getConnection() ;
+                     Statement stmt = connection.createStatement() ;
+                     ResultSet resultSet = stmt.executeQuery("SELECT 1")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(1, resultSet.getInt(1));
+                }
+            }
+        } finally {
+            concurrentDataSource.close();
+        }
+    }
+
     @Test
     public void testAllTableNames() throws Exception {
         System.out.println("allTableNames");
@@ -78,6 +100,72 @@ public class PostgresITDataSourceIT {
         dataSource.truncateAllTables();
     }
 
+    @Test
+    public void testCopyAllTablesFromDiskWithIndexRebuild() throws Exception {
+        System.out.println("copyAllTablesFromDiskWithIndexRebuild");
+        dataSource.truncateAllTables();
+        try (Connection connection = dataSource.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO foo VALUES('a'), ('b'), ('c')");
+            stmt.executeUpdate("INSERT INTO bar VALUES('1', 'a'), ('2', 'a'), ('3', 'b')");
+        }
+        dataSource.copyAllTablesToDisk();
+        dataSource.truncateAllTables();
+        testRowCount(0, 0);
+        long secondaryIndex = indexOid("bar_fool");
+        long primaryKey = indexOid("bar_pkey");
+        dataSource.copyAllTablesFromDiskWithIndexRebuild();
+        testRowCount(3, 3);
+        assertNotEquals("bar_fool should have been rebuilt", secondaryIndex, indexOid("bar_fool"));
+        assertEquals("bar_pkey should have been retained", primaryKey, indexOid("bar_pkey"));
+        try (Connection connection = dataSource.getConnection() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery("SELECT indexdef FROM pg_indexes WHERE indexname = 'bar_fool'")) {
+            assertTrue(resultSet.next());
+            assertTrue(resultSet.getString(1).contains("(fool)"));
+        }
+        dataSource.truncateAllTables();
+    }
+
+    @Test
+    public void testCopySubsetToDisk() throws Exception {
+        System.out.println("copySubsetToDisk");
+        dataSource.truncateAllTables();
+        try (Connection connection = dataSource.getConnection() ;
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO foo VALUES('a'), ('b'), ('c')");
+            stmt.executeUpdate("INSERT INTO bar VALUES('1', 'a'), ('2', 'a'), ('3', 'b')");
+            stmt.executeUpdate("INSERT INTO fin VALUES('x', '1'), ('y', '3')");
+        }
+        dataSource.copySubsetToDisk(PostgresITDataSource.SubsetRoot.where("fin", "finl = 'x'"),
+                                    PostgresITDataSource.SubsetRoot.of("foo").limit(0));
+        dataSource.truncateAllTables();
+        testRowCount(0, 0);
+        dataSource.copyAllTablesFromDisk();
+        testRowCount(1, 1);
+        try (Connection connection = dataSource.getConnection() ;
+             Statement stmt = connection.createStatement() ;
+             ResultSet resultSet = stmt.executeQuery("SELECT fin.finl, bar.baal, foo.fool FROM fin JOIN bar USING (baal) JOIN foo USING (fool)")) {
+            assertTrue(resultSet.next());
+            assertEquals("x", resultSet.getString(1));
+            assertEquals("1", resultSet.getString(2));
+            assertEquals("a", resultSet.getString(3));
+            assertFalse(resultSet.next());
+        }
+        dataSource.truncateAllTables();
+    }
+
+    private long indexOid(String name) throws SQLException {
+        try (Connection connection = dataSource.getConnection() ;
+             PreparedStatement stmt = connection.prepareStatement("SELECT oid FROM pg_class WHERE relname = ? AND relkind = 'i'")) {
+            stmt.setString(1, name);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                assertTrue("Index " + name + " should exist", resultSet.next());
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
     private void testRowCount(int foo, int bar) throws SQLException {
         try (Connection connection = dataSource.getConnection() ;
              Statement fooStmt = connection.createStatement() ;
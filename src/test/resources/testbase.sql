@@ -12,3 +12,4 @@ CREATE TABLE fin (
   baal TEXT NOT NULL,
   FOREIGN KEY (baal) REFERENCES bar(baal)
 );
+CREATE INDEX bar_fool ON bar (fool);